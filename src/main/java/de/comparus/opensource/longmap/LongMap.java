@@ -1,5 +1,8 @@
 package de.comparus.opensource.longmap;
 
+import java.util.Arrays;
+import java.util.function.BiFunction;
+
 public interface LongMap<V> {
     V put(long key, V value);
     V get(long key);
@@ -14,4 +17,116 @@ public interface LongMap<V> {
 
     long size();
     void clear();
+
+    /**
+     * Returns the keys present in both this map and {@code other}.
+     */
+    default long[] intersectKeys(LongMap<?> other) {
+        return intersectKeys(other, false);
+    }
+
+    /**
+     * Same as {@link #intersectKeys(LongMap)}. Implementations may split the work between the
+     * threads of the common {@link java.util.concurrent.ForkJoinPool} when {@code parallel} is
+     * {@code true}; neither map may be modified during such a call. The default implementation
+     * walks the smaller map sequentially and ignores {@code parallel}.
+     */
+    default long[] intersectKeys(LongMap<?> other, boolean parallel) {
+        boolean walkOther = other.size() < size();
+        LongMap<?> probed = walkOther ? this : other;
+
+        long[] keys = walkOther ? other.keys() : keys();
+        int i = 0;
+        for (long key : keys) {
+            if (probed.containsKey(key))
+                keys[i++] = key;
+        }
+        return Arrays.copyOf(keys, i);
+    }
+
+    /**
+     * Inner join on keys: for every key present in both maps the result maps it
+     * to {@code joiner.apply(thisValue, otherValue)}.
+     */
+    default <W, R> LongMap<R> join(LongMap<W> other, BiFunction<? super V, ? super W, ? extends R> joiner) {
+        return join(other, joiner, false);
+    }
+
+    /**
+     * Same as {@link #join(LongMap, BiFunction)}. When {@code parallel} is {@code true},
+     * implementations may call {@code joiner} and probe both maps concurrently from the threads of
+     * the common {@link java.util.concurrent.ForkJoinPool}, so {@code joiner} must be thread-safe
+     * and neither map may be modified during the call. The default implementation walks the
+     * smaller map sequentially and ignores {@code parallel}.
+     */
+    default <W, R> LongMap<R> join(LongMap<W> other, BiFunction<? super V, ? super W, ? extends R> joiner,
+                                   boolean parallel) {
+        LongMap<R> joined = new LongMapImpl<>();
+
+        if (other.size() < size()) {
+            for (long key : other.keys()) {
+                V value = get(key);
+                if (value != null || containsKey(key))
+                    joined.put(key, joiner.apply(value, other.get(key)));
+            }
+        } else {
+            for (long key : keys()) {
+                W value = other.get(key);
+                if (value != null || other.containsKey(key))
+                    joined.put(key, joiner.apply(get(key), value));
+            }
+        }
+        return joined;
+    }
+
+    /**
+     * Keeps only the keys that are also present in {@code other}.
+     *
+     * @return {@code true} if this map changed
+     */
+    default boolean retainAll(LongMap<?> other) {
+        boolean changed = false;
+        for (long key : keys()) {
+            if (!other.containsKey(key)) {
+                remove(key);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Removes every key that is present in {@code other}.
+     *
+     * @return {@code true} if this map changed
+     */
+    default boolean removeAll(LongMap<?> other) {
+        boolean changed = false;
+
+        if (other.size() < size()) {
+            for (long key : other.keys()) {
+                if (containsKey(key)) {
+                    remove(key);
+                    changed = true;
+                }
+            }
+        } else {
+            for (long key : keys()) {
+                if (other.containsKey(key)) {
+                    remove(key);
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Puts all entries of {@code other} into this map, replacing values of keys present in both.
+     */
+    default void putAllFrom(LongMap<? extends V> other) {
+        for (long key : other.keys()) {
+            put(key, other.get(key));
+        }
+    }
 }
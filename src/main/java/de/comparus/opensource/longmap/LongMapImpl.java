@@ -2,7 +2,13 @@ package de.comparus.opensource.longmap;
 
 import java.lang.reflect.Array;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
+import java.util.function.BiFunction;
+import java.util.function.LongConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class LongMapImpl<V> implements LongMap<V> {
 
@@ -10,11 +16,23 @@ public class LongMapImpl<V> implements LongMap<V> {
 
     private static final int DEFAULT_CAPACITY = 16;
 
-    private int capacity;
+    /**
+     * Buckets are stored in chunks of {@code CHUNK_SIZE} slots, so the table never needs
+     * one contiguous array (a G1 humongous object) and its capacity is not bound to int.
+     */
+    private static final int CHUNK_SHIFT = 16;
 
-    private Node<V>[] table;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
 
-    private int size = 0;
+    private static final long MAXIMUM_CAPACITY = (long) CHUNK_SIZE << 30;
+
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    private long capacity;
+
+    private Node<V>[][] table;
+
+    private long size = 0;
 
     static class Node<V> {
         long key;
@@ -42,12 +60,22 @@ public class LongMapImpl<V> implements LongMap<V> {
         }
     }
 
-    static int convertCapacityToPowOfTwo(int cap) {
-        int n = -1 >>> Integer.numberOfLeadingZeros(cap - 1);
-        return (n < 0) ? 1 : (n >= Integer.MAX_VALUE) ? Integer.MAX_VALUE : n + 1;
+    static class NodeChain<V> {
+        Node<V> head;
+        long size;
+
+        void push(long key, V value) {
+            head = new Node<>(key, value, head);
+            size++;
+        }
+    }
+
+    static long convertCapacityToPowOfTwo(long cap) {
+        long n = -1L >>> Long.numberOfLeadingZeros(cap - 1);
+        return (n < 0) ? 1 : (n >= MAXIMUM_CAPACITY) ? MAXIMUM_CAPACITY : n + 1;
     }
 
-    public LongMapImpl(int capacity) {
+    public LongMapImpl(long capacity) {
         if (capacity <= 0)
             throw new IllegalArgumentException("unacceptable initial capacity");
 
@@ -60,192 +88,189 @@ public class LongMapImpl<V> implements LongMap<V> {
 
 
     public V put(long key, V value) {
-        Node<V> newNode = new Node<>(key, value, null);
-        if (table != null) {
-            int indexNum = getIndex(key, table.length);
-            Node<V> oldNode = table[indexNum];
-
-            if (oldNode != null) {
-                if (oldNode.key == newNode.key) {
-                    V oldValue = oldNode.value;
-                    oldNode.value = newNode.value;
-                    return oldValue;
-                } else
-                    return checkLinkedListAndReplaceOrAdd(newNode, oldNode);
-            } else {
-                table[indexNum] = newNode;
-                size++;
-                table = resize();
-                return null;
-            }
-        } else {
-            table = resize();
-            int indexNum = getIndex(key, table.length);
-            table[indexNum] = newNode;
-            size++;
+        if (table == null)
             table = resize();
-            return null;
+
+        long indexNum = getIndex(key, capacity);
+        Node<V> head = getBucket(table, indexNum);
+
+        if (head != null) {
+            Node<V> existed = findNode(key, head);
+            if (existed != null) {
+                V oldValue = existed.value;
+                existed.value = value;
+                return oldValue;
+            }
         }
+
+        setBucket(table, indexNum, new Node<>(key, value, head));
+        size++;
+        table = resize();
+        return null;
     }
 
-    private int getIndex(long key, int length) {
-        return (length - 1) & Long.hashCode(key);
+    private static long hash(long key) {
+        return key ^ (key >>> 32);
     }
 
+    private static long getIndex(long key, long capacity) {
+        return (capacity - 1) & hash(key);
+    }
 
-    private V checkLinkedListAndReplaceOrAdd(Node<V> newNode, Node<V> oldNodeHead) {
-        Node<V> next = oldNodeHead;
-        Node<V> prev = oldNodeHead;
+    private static <V> Node<V> getBucket(Node<V>[][] table, long indexNum) {
+        return table[(int) (indexNum >>> CHUNK_SHIFT)][(int) indexNum & (CHUNK_SIZE - 1)];
+    }
 
-        while (next != null) {
-            if (next.key == newNode.key) {
+    private static <V> void setBucket(Node<V>[][] table, long indexNum, Node<V> node) {
+        table[(int) (indexNum >>> CHUNK_SHIFT)][(int) indexNum & (CHUNK_SIZE - 1)] = node;
+    }
 
-                if (next.equals(newNode))
-                    return next.value;
 
-                prev.next = newNode;
-                newNode.next = next.next;
+    private Node<V> findNode(long key, Node<V> head) {
+        Node<V> next = head;
+        while (next != null) {
 
-                return next.value;
-            } else {
-                prev = next;
-                next = next.next;
-                if (next == null) {
-                    prev.next = newNode;
-                    size++;
-                    table = resize();
-                    return null;
-                }
-            }
+            if (next.key == key)
+                return next;
+
+            next = next.next;
         }
         return null;
     }
 
-    @SuppressWarnings({"unchecked"})
-    private Node<V>[] resize() {
-        Node<V>[] oldTable = table;
+    private Node<V>[][] resize() {
+        Node<V>[][] oldTable = table;
         if (table == null || size == 0) {
-            return (Node<V>[]) new Node[capacity];
-        } else if ((float) (size / oldTable.length) >= DEFAULT_LOAD_FACTOR) {
+            return newTable(capacity);
+        } else if ((float) (size / capacity) >= DEFAULT_LOAD_FACTOR) {
 
-            int oldCapacity = oldTable.length;
-            int newCapacity;
+            long oldCapacity = capacity;
 
-            if (oldCapacity >= Integer.MAX_VALUE)
+            if (oldCapacity >= MAXIMUM_CAPACITY)
                 return oldTable;
 
-            if (willAdditionOverflow(oldCapacity, oldCapacity)) {
-                newCapacity = Integer.MAX_VALUE;
-            } else {
-                newCapacity = oldCapacity << 1;
-            }
-            capacity = newCapacity;
-            return restructure(oldTable, newCapacity);
+            capacity = oldCapacity << 1;
+            return restructure(oldTable, oldCapacity, capacity);
 
         } else {
             return oldTable;
         }
     }
 
-    private boolean willAdditionOverflow(int left, int right) {
-        try {
-            Math.addExact(left, right);
-            return false;
-        } catch (ArithmeticException e) {
-            return true;
+    @SuppressWarnings({"unchecked"})
+    private static <V> Node<V>[][] newTable(long capacity) {
+        if (capacity <= CHUNK_SIZE) {
+            Node<V>[][] table = (Node<V>[][]) new Node[1][];
+            table[0] = (Node<V>[]) new Node[(int) capacity];
+            return table;
         }
+
+        Node<V>[][] table = (Node<V>[][]) new Node[(int) (capacity >>> CHUNK_SHIFT)][];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (Node<V>[]) new Node[CHUNK_SIZE];
+        }
+        return table;
     }
 
+    /**
+     * Doubles the table. A table of a single partial chunk is rehashed as a whole; otherwise the
+     * existing chunks are kept and every bucket is split between itself and its twin in a newly
+     * allocated upper chunk, one chunk at a time.
+     */
     @SuppressWarnings({"unchecked"})
-    private Node<V>[] restructure(Node<V>[] old, int newCapacity) {
-        Node<V>[] newTable = (Node<V>[]) new Node[newCapacity];
-
-        for (int i = 0; i < old.length; i++) {
-            Node<V> elem = old[i];
-            if (elem != null) {
-                old[i] = null;
-                putElemInNewTable(newTable, elem);
-                Node<V> next = elem.next;
-                while (next != null) {
-                    putElemInNewTable(newTable, next);
-                    next = next.next;
+    private static <V> Node<V>[][] restructure(Node<V>[][] old, long oldCapacity, long newCapacity) {
+        if (newCapacity <= CHUNK_SIZE) {
+            Node<V>[][] newTable = newTable(newCapacity);
+            for (Node<V>[] chunk : old) {
+                for (int i = 0; i < chunk.length; i++) {
+                    Node<V> next = chunk[i];
+                    chunk[i] = null;
+                    while (next != null) {
+                        Node<V> elem = next;
+                        next = elem.next;
+                        putElemInNewTable(newTable, newCapacity, elem);
+                    }
                 }
             }
+            return newTable;
         }
-        return newTable;
-    }
 
-    private void putElemInNewTable(Node<V>[] newTable, Node<V> next) {
-        if (newTable[getIndex(next.key, newTable.length)] != null) {
-            Node<V> existedNode = newTable[getIndex(next.key, newTable.length)];
-            newTable[getIndex(next.key, newTable.length)] = appendNodeToList(existedNode, next);
-        } else {
-            newTable[getIndex(next.key, newTable.length)] = next;
-        }
-    }
+        int oldChunks = old.length;
+        Node<V>[][] newTable = Arrays.copyOf(old, (int) (newCapacity >>> CHUNK_SHIFT));
 
-    private Node<V> appendNodeToList(Node<V> existed, Node<V> node) {
-        Node<V> next = existed;
-        while (next != null) {
+        for (int c = 0; c < oldChunks; c++) {
+            Node<V>[] lower = newTable[c];
+            Node<V>[] upper = (Node<V>[]) new Node[CHUNK_SIZE];
+            newTable[c + oldChunks] = upper;
 
-            if (next.next == null) {
-                next.next = node;
-                break;
-            }
+            for (int i = 0; i < CHUNK_SIZE; i++) {
+                Node<V> lowHead = null;
+                Node<V> highHead = null;
+                Node<V> next = lower[i];
 
-            next = next.next;
+                while (next != null) {
+                    Node<V> elem = next;
+                    next = elem.next;
+                    if ((hash(elem.key) & oldCapacity) == 0) {
+                        elem.next = lowHead;
+                        lowHead = elem;
+                    } else {
+                        elem.next = highHead;
+                        highHead = elem;
+                    }
+                }
+                lower[i] = lowHead;
+                upper[i] = highHead;
+            }
         }
-        return existed;
+        return newTable;
+    }
+
+    private static <V> void putElemInNewTable(Node<V>[][] newTable, long newCapacity, Node<V> node) {
+        long indexNum = getIndex(node.key, newCapacity);
+        node.next = getBucket(newTable, indexNum);
+        setBucket(newTable, indexNum, node);
     }
 
 
     public V get(long key) {
-        if (table == null || size == 0)
-            return null;
+        Node<V> node = getNode(key);
 
-        int indexNum = getIndex(key, table.length);
-        Node<V> node = table[indexNum];
+        return node != null ? node.value : null;
+    }
 
-        if (node == null)
+    private Node<V> getNode(long key) {
+        if (table == null || size == 0)
             return null;
 
-        if (node.next == null) {
-            if (Objects.equals(node.key, key))
-                return node.value;
-            else
-                return null;
-        }
-
-        return findValueInNodeList(key, node);
+        return findNode(key, getBucket(table, getIndex(key, capacity)));
     }
 
-    private V findValueInNodeList(long key, Node<V> node) {
-        Node<V> next = node;
-        while (next != null) {
-
-            if (Objects.equals(key, next.key))
-                return next.value;
+    public V remove(long key) {
+        Node<V> node = removeNode(key);
 
-            next = next.next;
-        }
-        return null;
+        return node != null ? node.value : null;
     }
 
-    public V remove(long key) {
-        Node<V> eHead = table[getIndex(key, table.length)];
+    private Node<V> removeNode(long key) {
+        if (table == null || size == 0)
+            return null;
+
+        long indexNum = getIndex(key, capacity);
+        Node<V> eHead = getBucket(table, indexNum);
         if (eHead != null) {
-            if (Objects.equals(eHead.key, key)) {
-                table[getIndex(key, table.length)] = eHead.next;
+            if (eHead.key == key) {
+                setBucket(table, indexNum, eHead.next);
                 size--;
-                return eHead.value;
+                return eHead;
             } else {
+                Node<V> prev = eHead;
                 Node<V> next = eHead.next;
-                Node<V> prev = eHead.next;
                 while (next != null) {
-                    if (Objects.equals(next.key, key)) {
+                    if (next.key == key) {
                         prev.next = next.next;
                         size--;
-                        return next.value;
+                        return next;
                     }
                     prev = next;
                     next = next.next;
@@ -262,53 +287,22 @@ public class LongMapImpl<V> implements LongMap<V> {
     }
 
     public boolean containsKey(long key) {
-        Node<V>[] table = this.table;
-        Node<V> head;
-
-        if (table == null || size == 0)
-            return false;
-
-        head = table[getIndex(key, table.length)];
-
-        if (head != null) {
-
-            if (Objects.equals(head.key, key))
-                return true;
-
-            Node<V> next = head.next;
-
-            while (next != null) {
-
-                if (Objects.equals(next.key, key))
-                    return true;
-
-                next = next.next;
-            }
-        }
-
-
-        return false;
+        return getNode(key) != null;
     }
 
     public boolean containsValue(V value) {
-        Node<V>[] table = this.table;
-        Node<V> vHead;
+        Node<V>[][] table = this.table;
         if (table == null || size == 0)
             return false;
 
-        for (Node<V> vNode : table) {
-            vHead = vNode;
-            if (vHead != null) {
-                if (Objects.equals(value, vHead.value)) {
-                    return true;
-                } else {
-                    Node<V> next = vHead.next;
-                    while (next != null) {
-                        if (Objects.equals(value, next.value))
-                            return true;
+        for (Node<V>[] chunk : table) {
+            for (Node<V> vHead : chunk) {
+                Node<V> next = vHead;
+                while (next != null) {
+                    if (Objects.equals(value, next.value))
+                        return true;
 
-                        next = next.next;
-                    }
+                    next = next.next;
                 }
             }
         }
@@ -320,19 +314,12 @@ public class LongMapImpl<V> implements LongMap<V> {
         if (table == null || size == 0)
             return new long[0];
 
-        long[] keys = new long[size];
+        long[] keys = new long[arraySize()];
         int i = 0;
 
-        Node<V> headV;
-
-        for (Node<V> vNode : table) {
-            headV = vNode;
-
-            if (headV != null) {
-                keys[i] = headV.key;
-                i++;
-                Node<V> next = headV.next;
-
+        for (Node<V>[] chunk : table) {
+            for (Node<V> headV : chunk) {
+                Node<V> next = headV;
                 while (next != null) {
                     keys[i] = next.key;
                     i++;
@@ -351,31 +338,30 @@ public class LongMapImpl<V> implements LongMap<V> {
 
         V[] values = null;
 
-        int i = 0;
-        Node<V> headV;
-
-        for (Node<V> node : table) {
-            if (node != null && node.value != null) {
+        for (Node<V>[] chunk : table) {
+            for (Node<V> node : chunk) {
+                if (node != null && node.value != null) {
 
-                Class<?> aClass = node.value.getClass();
-                values = (V[]) Array.newInstance(aClass, size);
-                break;
+                    Class<?> aClass = node.value.getClass();
+                    values = (V[]) Array.newInstance(aClass, arraySize());
+                    break;
+                }
             }
+            if (values != null)
+                break;
         }
 
-        for (Node<V> vNode : table) {
-            headV = vNode;
-
-            if (headV != null && values != null) {
-                values[i] = headV.value;
-                i++;
+        if (values == null)
+            return null;
 
-                Node<V> next = headV.next;
+        int i = 0;
 
+        for (Node<V>[] chunk : table) {
+            for (Node<V> headV : chunk) {
+                Node<V> next = headV;
                 while (next != null) {
                     values[i] = next.value;
                     i++;
-
                     next = next.next;
                 }
             }
@@ -384,6 +370,13 @@ public class LongMapImpl<V> implements LongMap<V> {
         return values;
     }
 
+    private int arraySize() {
+        if (size > MAX_ARRAY_SIZE)
+            throw new IllegalStateException("map is too large to be copied into an array");
+
+        return (int) size;
+    }
+
     public long size() {
         return size;
     }
@@ -392,7 +385,306 @@ public class LongMapImpl<V> implements LongMap<V> {
         if (table == null || size == 0)
             return;
 
-        Arrays.fill(table, null);
+        for (Node<V>[] chunk : table) {
+            Arrays.fill(chunk, null);
+        }
         size = 0;
     }
+
+    public long[] intersectKeys(LongMap<?> other, boolean parallel) {
+        if (isEmpty() || other.isEmpty())
+            return new long[0];
+
+        if (other.size() < size) {
+            if (other instanceof LongMapImpl)
+                return ((LongMapImpl<?>) other).probeKeys(this, parallel);
+
+            return filterContainedKeys(other.keys(), this);
+        }
+        return probeKeys(other, parallel);
+    }
+
+    private long[] probeKeys(LongMap<?> probed, boolean parallel) {
+        Node<V>[][] table = this.table;
+        int expected = (int) Math.min(Math.min(size, probed.size()), MAX_ARRAY_SIZE);
+
+        if (!parallel || table.length == 1)
+            return intersectChunks(table, 0, table.length, probed, expected);
+
+        long[][] parts = IntStream.range(0, table.length)
+                .parallel()
+                .mapToObj(chunk -> intersectChunks(table, chunk, chunk + 1, probed, expected / table.length))
+                .toArray(long[][]::new);
+
+        long length = 0;
+        for (long[] part : parts) {
+            length += part.length;
+        }
+        if (length > MAX_ARRAY_SIZE)
+            throw new IllegalStateException("intersection is too large to be copied into an array");
+
+        long[] keys = new long[(int) length];
+        int i = 0;
+        for (long[] part : parts) {
+            System.arraycopy(part, 0, keys, i, part.length);
+            i += part.length;
+        }
+        return keys;
+    }
+
+    private static <V> long[] intersectChunks(Node<V>[][] table, int from, int to, LongMap<?> probed, int expected) {
+        long[] keys = new long[Math.max(expected, 16)];
+        int i = 0;
+
+        for (int chunk = from; chunk < to; chunk++) {
+            for (Node<V> head : table[chunk]) {
+                Node<V> next = head;
+                while (next != null) {
+                    if (probed.containsKey(next.key)) {
+                        if (i == keys.length)
+                            keys = Arrays.copyOf(keys, (int) Math.min((long) keys.length << 1, MAX_ARRAY_SIZE));
+
+                        keys[i++] = next.key;
+                    }
+                    next = next.next;
+                }
+            }
+        }
+        return i == keys.length ? keys : Arrays.copyOf(keys, i);
+    }
+
+    private static long[] filterContainedKeys(long[] keys, LongMap<?> probed) {
+        int i = 0;
+        for (long key : keys) {
+            if (probed.containsKey(key))
+                keys[i++] = key;
+        }
+        return Arrays.copyOf(keys, i);
+    }
+
+    public <W, R> LongMap<R> join(LongMap<W> other, BiFunction<? super V, ? super W, ? extends R> joiner,
+                                  boolean parallel) {
+        if (isEmpty() || other.isEmpty())
+            return new LongMapImpl<>();
+
+        if (!(other instanceof LongMapImpl)) {
+            NodeChain<R> joined = new NodeChain<>();
+            if (other.size() < size) {
+                for (long key : other.keys()) {
+                    Node<V> node = getNode(key);
+                    if (node != null)
+                        joined.push(key, joiner.apply(node.value, other.get(key)));
+                }
+            } else {
+                forEachKey(key -> {
+                    W value = other.get(key);
+                    if (value != null || other.containsKey(key))
+                        joined.push(key, joiner.apply(get(key), value));
+                });
+            }
+            return linkChains(Collections.singletonList(joined));
+        }
+
+        LongMapImpl<W> otherImpl = (LongMapImpl<W>) other;
+        boolean walkOther = otherImpl.size < size;
+        int chunks = walkOther ? otherImpl.table.length : table.length;
+
+        if (!parallel || chunks == 1)
+            return linkChains(Collections.singletonList(joinChunks(otherImpl, walkOther, 0, chunks, joiner)));
+
+        List<NodeChain<R>> joined = IntStream.range(0, chunks)
+                .parallel()
+                .mapToObj(chunk -> this.<W, R>joinChunks(otherImpl, walkOther, chunk, chunk + 1, joiner))
+                .collect(Collectors.toList());
+        return linkChains(joined);
+    }
+
+    private <W, R> NodeChain<R> joinChunks(LongMapImpl<W> other, boolean walkOther, int from, int to,
+                                           BiFunction<? super V, ? super W, ? extends R> joiner) {
+        NodeChain<R> joined = new NodeChain<>();
+
+        if (walkOther) {
+            for (int chunk = from; chunk < to; chunk++) {
+                for (Node<W> head : other.table[chunk]) {
+                    Node<W> next = head;
+                    while (next != null) {
+                        Node<V> node = getNode(next.key);
+                        if (node != null)
+                            joined.push(next.key, joiner.apply(node.value, next.value));
+
+                        next = next.next;
+                    }
+                }
+            }
+        } else {
+            for (int chunk = from; chunk < to; chunk++) {
+                for (Node<V> head : table[chunk]) {
+                    Node<V> next = head;
+                    while (next != null) {
+                        Node<W> node = other.getNode(next.key);
+                        if (node != null)
+                            joined.push(next.key, joiner.apply(next.value, node.value));
+
+                        next = next.next;
+                    }
+                }
+            }
+        }
+        return joined;
+    }
+
+    private static <R> LongMapImpl<R> linkChains(List<NodeChain<R>> chains) {
+        long size = 0;
+        for (NodeChain<R> chain : chains) {
+            size += chain.size;
+        }
+
+        if (size == 0)
+            return new LongMapImpl<>();
+
+        LongMapImpl<R> result = new LongMapImpl<>(size);
+        result.table = result.resize();
+
+        for (NodeChain<R> chain : chains) {
+            Node<R> next = chain.head;
+            while (next != null) {
+                Node<R> elem = next;
+                next = elem.next;
+                putElemInNewTable(result.table, result.capacity, elem);
+            }
+        }
+        result.size = size;
+        return result;
+    }
+
+    public boolean retainAll(LongMap<?> other) {
+        if (isEmpty())
+            return false;
+
+        long oldSize = size;
+
+        if (other.isEmpty()) {
+            clear();
+        } else if (other.size() < size) {
+            long newCapacity = convertCapacityToPowOfTwo(other.size());
+            Node<V>[][] newTable = newTable(newCapacity);
+
+            forEachKey(other, key -> {
+                Node<V> node = removeNode(key);
+                if (node != null)
+                    putElemInNewTable(newTable, newCapacity, node);
+            });
+
+            long retained = oldSize - size;
+            table = newTable;
+            capacity = newCapacity;
+            size = retained;
+        } else {
+            unlinkIf(other, false);
+        }
+        return size != oldSize;
+    }
+
+    public boolean removeAll(LongMap<?> other) {
+        if (isEmpty() || other.isEmpty())
+            return false;
+
+        long oldSize = size;
+
+        if (other.size() < size)
+            forEachKey(other, this::removeNode);
+        else
+            unlinkIf(other, true);
+
+        return size != oldSize;
+    }
+
+    private void unlinkIf(LongMap<?> other, boolean contained) {
+        for (Node<V>[] chunk : table) {
+            for (int i = 0; i < chunk.length; i++) {
+                Node<V> prev = null;
+                Node<V> next = chunk[i];
+
+                while (next != null) {
+                    Node<V> elem = next;
+                    next = elem.next;
+
+                    if (other.containsKey(elem.key) == contained) {
+                        if (prev == null)
+                            chunk[i] = next;
+                        else
+                            prev.next = next;
+                        size--;
+                    } else {
+                        prev = elem;
+                    }
+                }
+            }
+        }
+    }
+
+    public void putAllFrom(LongMap<? extends V> other) {
+        if (other.isEmpty())
+            return;
+
+        ensureCapacity(Math.max(size, other.size()));
+
+        if (other instanceof LongMapImpl)
+            putAllNodes((LongMapImpl<? extends V>) other);
+        else
+            for (long key : other.keys()) {
+                put(key, other.get(key));
+            }
+    }
+
+    private <T extends V> void putAllNodes(LongMapImpl<T> other) {
+        for (Node<T>[] chunk : other.table) {
+            for (Node<T> head : chunk) {
+                Node<T> next = head;
+                while (next != null) {
+                    put(next.key, next.value);
+                    next = next.next;
+                }
+            }
+        }
+    }
+
+    private void ensureCapacity(long expectedSize) {
+        long newCapacity = convertCapacityToPowOfTwo(expectedSize);
+
+        if (table == null) {
+            capacity = Math.max(capacity, newCapacity);
+            table = resize();
+        } else {
+            while (capacity < newCapacity) {
+                table = restructure(table, capacity, capacity << 1);
+                capacity <<= 1;
+            }
+        }
+    }
+
+    private void forEachKey(LongConsumer action) {
+        if (table == null)
+            return;
+
+        for (Node<V>[] chunk : table) {
+            for (Node<V> head : chunk) {
+                Node<V> next = head;
+                while (next != null) {
+                    action.accept(next.key);
+                    next = next.next;
+                }
+            }
+        }
+    }
+
+    private static void forEachKey(LongMap<?> map, LongConsumer action) {
+        if (map instanceof LongMapImpl) {
+            ((LongMapImpl<?>) map).forEachKey(action);
+        } else {
+            for (long key : map.keys()) {
+                action.accept(key);
+            }
+        }
+    }
 }
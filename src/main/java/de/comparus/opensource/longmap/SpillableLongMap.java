@@ -0,0 +1,885 @@
+package de.comparus.opensource.longmap;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.BinaryOperator;
+
+/**
+ * A {@link LongMap} that keeps at most {@code memoryBudget} estimated bytes on heap.
+ * {@code MERGE_BUFFER_BYTES} of the budget are reserved for the buffers used to write and merge
+ * spill files, the rest holds entries. When the entries exceed it they are hash-partitioned and
+ * every partition is appended as a key-sorted run to its spill file; lookups probe the runs of
+ * the key's partition and iteration merges them, like the spilling phase of a hybrid hash
+ * aggregate.
+ * <p>
+ * Runs are merged size-tiered: every partition has one spill file per tier, spilled runs go to
+ * tier 0, and once a tier holds {@code MERGE_FAN_IN} runs they are merged into one run appended to
+ * the next tier and the tier file is truncated. Every spilled record is therefore rewritten once
+ * per tier, logarithmically often in the number of spills, and so are the files and runs kept.
+ * <p>
+ * Entries written by {@link #aggregate(long, Object)} are partial results that are combined
+ * with {@code combiner} when runs are merged, so aggregation never reads the disk.
+ * {@link #put(long, Object)} and {@link #remove(long)} read the spilled runs to return the
+ * previous value. The map is not thread-safe and must be closed to delete its spill files.
+ */
+public class SpillableLongMap<V> implements LongMap<V>, Closeable {
+
+    private static final int PARTITION_BITS = 4;
+
+    static final int PARTITIONS = 1 << PARTITION_BITS;
+
+    static final int MERGE_FAN_IN = 8;
+
+    private static final int INDEX_INTERVAL = 64;
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private static final int MIN_READ_BUFFER_SIZE = 1024;
+
+    /**
+     * Part of the budget reserved for the read buffers of a merge and one write buffer.
+     */
+    static final long MERGE_BUFFER_BYTES = (MERGE_FAN_IN + 1) * (long) BUFFER_SIZE;
+
+    /**
+     * Smallest part of the budget left for entries, so that a spill writes more than a handful.
+     */
+    private static final long MIN_ENTRY_BYTES = 64 * 1024;
+
+    static final long MIN_MEMORY_BUDGET = MERGE_BUFFER_BYTES + MIN_ENTRY_BYTES;
+
+    private static final int RECORD_HEADER_BYTES = Long.BYTES + Byte.BYTES + Integer.BYTES;
+
+    /**
+     * Estimated heap taken by one in-memory entry besides its value: node, slot and table slot.
+     */
+    private static final long ENTRY_OVERHEAD_BYTES = 64;
+
+    private static final byte PARTIAL = 0;
+    private static final byte REPLACED = 1;
+    private static final byte REMOVED = 2;
+
+    private static final long[] NO_KEYS = new long[0];
+
+    private final long memoryBudget;
+
+    private final ValueCodec<V> codec;
+
+    private final BinaryOperator<V> combiner;
+
+    private final Path spillDirectory;
+
+    private final LongMapImpl<Slot<V>> memory = new LongMapImpl<>();
+
+    private final Partition[] partitions = new Partition[PARTITIONS];
+
+    /**
+     * Live entries per partition; a partition whose count is not known is recounted on demand.
+     */
+    private final long[] partitionSizes = new long[PARTITIONS];
+
+    private final boolean[] partitionSizeKnown = new boolean[PARTITIONS];
+
+    private long memoryBytes = 0;
+
+    private int spillCount = 0;
+
+    private long spilledBytes = 0;
+
+    private long rewrittenBytes = 0;
+
+    public interface EntryConsumer<V> {
+        void accept(long key, V value);
+    }
+
+    private interface EntryVisitor<V> {
+        /**
+         * @return {@code false} to stop the scan
+         */
+        boolean visit(long key, V value) throws IOException;
+    }
+
+    private interface SlotVisitor<V> {
+        /**
+         * @return {@code false} to stop the scan
+         */
+        boolean visit(long key, Slot<V> slot) throws IOException;
+    }
+
+    static class Slot<V> {
+        byte kind;
+        V value;
+
+        Slot(byte kind, V value) {
+            this.kind = kind;
+            this.value = value;
+        }
+    }
+
+    static class Run {
+        final long[] indexKeys;
+        final long[] indexOffsets;
+        final long lastKey;
+        final long start;
+        final long end;
+
+        Run(long[] indexKeys, long[] indexOffsets, long lastKey, long start, long end) {
+            this.indexKeys = indexKeys;
+            this.indexOffsets = indexOffsets;
+            this.lastKey = lastKey;
+            this.start = start;
+            this.end = end;
+        }
+
+        long bytes() {
+            return end - start;
+        }
+    }
+
+    static class SpillFile {
+        final Path path;
+        final FileChannel channel;
+        final List<Run> runs = new ArrayList<>();
+        long length;
+
+        SpillFile(Path path, FileChannel channel) {
+            this.path = path;
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * Spill files of one partition indexed by tier. Runs are only merged within a tier, so every
+     * run of tier {@code t + 1} is older than every run of tier {@code t}.
+     */
+    static class Partition {
+        final List<SpillFile> tiers = new ArrayList<>();
+
+        boolean hasRuns() {
+            for (SpillFile file : tiers) {
+                if (!file.runs.isEmpty())
+                    return true;
+            }
+            return false;
+        }
+
+        boolean hasRunsAbove(int tier) {
+            for (int t = tier + 1; t < tiers.size(); t++) {
+                if (!tiers.get(t).runs.isEmpty())
+                    return true;
+            }
+            return false;
+        }
+
+        List<SpillFile> oldestFirst() {
+            List<SpillFile> files = new ArrayList<>(tiers);
+            Collections.reverse(files);
+            return files;
+        }
+    }
+
+    private static class LongArray {
+        long[] items = new long[16];
+        int size;
+
+        void add(long item) {
+            if (size == items.length)
+                items = Arrays.copyOf(items, size << 1);
+
+            items[size++] = item;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(items, size);
+        }
+    }
+
+    public SpillableLongMap(long memoryBudget, ValueCodec<V> codec, BinaryOperator<V> combiner) {
+        this(memoryBudget, codec, combiner, Paths.get(System.getProperty("java.io.tmpdir")));
+    }
+
+    public SpillableLongMap(long memoryBudget, ValueCodec<V> codec, BinaryOperator<V> combiner,
+                            Path spillDirectory) {
+        if (memoryBudget < MIN_MEMORY_BUDGET)
+            throw new IllegalArgumentException("unacceptable memory budget, it must be at least "
+                    + MIN_MEMORY_BUDGET + " bytes: " + MERGE_BUFFER_BYTES + " for spill buffers and "
+                    + MIN_ENTRY_BYTES + " for entries");
+
+        this.memoryBudget = memoryBudget;
+        this.codec = Objects.requireNonNull(codec);
+        this.combiner = Objects.requireNonNull(combiner);
+        this.spillDirectory = Objects.requireNonNull(spillDirectory);
+        Arrays.fill(partitionSizeKnown, true);
+
+        for (int partition = 0; partition < PARTITIONS; partition++) {
+            partitions[partition] = new Partition();
+        }
+    }
+
+
+    /**
+     * Combines {@code value} into the entry of {@code key}, inserting it if the key is absent.
+     */
+    public void aggregate(long key, V value) {
+        Slot<V> slot = memory.get(key);
+        int partition = partitionOf(key);
+
+        if (slot == null) {
+            memory.put(key, new Slot<>(PARTIAL, value));
+            memoryBytes += ENTRY_OVERHEAD_BYTES + valueBytes(value);
+
+            if (hasRuns(partition))
+                partitionSizeKnown[partition] = false;
+            else
+                partitionSizes[partition]++;
+        } else if (slot.kind == REMOVED) {
+            memoryBytes += valueBytes(value);
+            slot.kind = REPLACED;
+            slot.value = value;
+            partitionSizes[partition]++;
+        } else {
+            V combined = combiner.apply(slot.value, value);
+            memoryBytes += valueBytes(combined) - valueBytes(slot.value);
+            slot.value = combined;
+        }
+
+        spillIfOverBudget();
+    }
+
+    public V put(long key, V value) {
+        Slot<V> previous = lookup(key);
+        V previousValue = previous != null ? previous.value : null;
+
+        store(key, REPLACED, value);
+        if (previous == null)
+            partitionSizes[partitionOf(key)]++;
+
+        spillIfOverBudget();
+        return previousValue;
+    }
+
+    public V get(long key) {
+        Slot<V> slot = lookup(key);
+
+        return slot != null ? slot.value : null;
+    }
+
+    public V remove(long key) {
+        Slot<V> previous = lookup(key);
+        if (previous == null)
+            return null;
+
+        V previousValue = previous.value;
+        int partition = partitionOf(key);
+
+        if (hasRuns(partition)) {
+            store(key, REMOVED, null);
+        } else {
+            Slot<V> slot = memory.remove(key);
+            memoryBytes -= ENTRY_OVERHEAD_BYTES + valueBytes(slot.value);
+        }
+        partitionSizes[partition]--;
+
+        spillIfOverBudget();
+        return previousValue;
+    }
+
+    public boolean isEmpty() {
+        for (int partition = 0; partition < PARTITIONS; partition++) {
+            if (partitionSizeKnown[partition] && partitionSizes[partition] > 0)
+                return false;
+        }
+        return scan((key, value) -> false, true);
+    }
+
+    public boolean containsKey(long key) {
+        return lookup(key) != null;
+    }
+
+    public boolean containsValue(V value) {
+        return !scan((key, v) -> !Objects.equals(value, v), false);
+    }
+
+    public long[] keys() {
+        LongArray keys = new LongArray();
+        forEach((key, value) -> keys.add(key));
+        return keys.toArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    public V[] values() {
+        List<V> list = new ArrayList<>();
+        Class<?>[] valueClass = {null};
+
+        forEach((key, value) -> {
+            if (valueClass[0] == null && value != null)
+                valueClass[0] = value.getClass();
+
+            list.add(value);
+        });
+
+        if (valueClass[0] == null)
+            return null;
+
+        return list.toArray((V[]) Array.newInstance(valueClass[0], list.size()));
+    }
+
+    /**
+     * Exact size; partitions that received new keys since their runs were last merged are
+     * recounted by merging only their own runs.
+     */
+    public long size() {
+        long[] memoryKeys = null;
+        int[] bounds = null;
+        long size = 0;
+
+        try {
+            for (int partition = 0; partition < PARTITIONS; partition++) {
+                if (!partitionSizeKnown[partition]) {
+                    if (memoryKeys == null) {
+                        memoryKeys = memory.keys();
+                        bounds = sortByPartition(memoryKeys);
+                    }
+
+                    long[] count = {0};
+                    scanPartition(partition, memoryKeys, bounds[partition], bounds[partition + 1],
+                            (key, value) -> ++count[0] > 0);
+                    partitionSizes[partition] = count[0];
+                    partitionSizeKnown[partition] = true;
+                }
+                size += partitionSizes[partition];
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return size;
+    }
+
+    public void clear() {
+        deleteSpillFiles();
+        memory.clear();
+        memoryBytes = 0;
+        spillCount = 0;
+        Arrays.fill(partitionSizes, 0);
+        Arrays.fill(partitionSizeKnown, true);
+    }
+
+    @Override
+    public void close() {
+        clear();
+    }
+
+    /**
+     * Visits every entry, merging the spilled runs partition by partition. Within a partition
+     * keys are visited in ascending order.
+     */
+    public void forEach(EntryConsumer<? super V> action) {
+        scan((key, value) -> {
+            action.accept(key, value);
+            return true;
+        }, false);
+    }
+
+    int spillCount() {
+        return spillCount;
+    }
+
+    int spillFileCount() {
+        int files = 0;
+        for (Partition partition : partitions) {
+            files += partition.tiers.size();
+        }
+        return files;
+    }
+
+    long spilledBytes() {
+        return spilledBytes;
+    }
+
+    long rewrittenBytes() {
+        return rewrittenBytes;
+    }
+
+    int maxRunsPerPartition() {
+        int maxRuns = 0;
+        for (Partition partition : partitions) {
+            int runs = 0;
+            for (SpillFile file : partition.tiers) {
+                runs += file.runs.size();
+            }
+            maxRuns = Math.max(maxRuns, runs);
+        }
+        return maxRuns;
+    }
+
+    /**
+     * @return {@code false} if {@code visitor} stopped the scan
+     */
+    private boolean scan(EntryVisitor<? super V> visitor, boolean unknownPartitionsOnly) {
+        long[] memoryKeys = memory.keys();
+        int[] bounds = sortByPartition(memoryKeys);
+
+        try {
+            for (int partition = 0; partition < PARTITIONS; partition++) {
+                if (unknownPartitionsOnly && partitionSizeKnown[partition])
+                    continue;
+
+                if (!scanPartition(partition, memoryKeys, bounds[partition], bounds[partition + 1], visitor))
+                    return false;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return true;
+    }
+
+    private void store(long key, byte kind, V value) {
+        Slot<V> slot = memory.get(key);
+
+        if (slot == null) {
+            memory.put(key, new Slot<>(kind, value));
+            memoryBytes += ENTRY_OVERHEAD_BYTES + valueBytes(value);
+        } else {
+            memoryBytes += valueBytes(value) - valueBytes(slot.value);
+            slot.kind = kind;
+            slot.value = value;
+        }
+    }
+
+    private long valueBytes(V value) {
+        return value != null ? codec.sizeOf(value) : 0;
+    }
+
+    private boolean hasRuns(int partition) {
+        return partitions[partition].hasRuns();
+    }
+
+    private Slot<V> lookup(long key) {
+        Slot<V> slot = memory.get(key);
+
+        if (slot != null && slot.kind != PARTIAL)
+            return slot.kind == REMOVED ? null : slot;
+
+        Slot<V> merged = null;
+
+        try {
+            for (SpillFile file : partitions[partitionOf(key)].oldestFirst()) {
+                for (Run run : file.runs) {
+                    merged = foldFromRun(merged, file.channel, run, key);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        if (slot != null)
+            merged = fold(merged, slot.kind, slot.value);
+
+        return merged != null && merged.kind != REMOVED ? merged : null;
+    }
+
+    /**
+     * Folds a newer record of a key into {@code merged}, the state of the key in older records.
+     * The result keeps its kind, so that folding only the newest runs of a partition can be
+     * written back as a run; a {@link #REMOVED} result means the key is absent.
+     */
+    private Slot<V> fold(Slot<V> merged, byte kind, V value) {
+        if (kind != PARTIAL || merged == null)
+            return new Slot<>(kind, value);
+
+        if (merged.kind == REMOVED)
+            return new Slot<>(REPLACED, value);
+
+        merged.value = combiner.apply(merged.value, value);
+        return merged;
+    }
+
+    private Slot<V> foldFromRun(Slot<V> merged, FileChannel channel, Run run, long key) throws IOException {
+        if (key > run.lastKey)
+            return merged;
+
+        int block = Arrays.binarySearch(run.indexKeys, key);
+        if (block < 0)
+            block = -block - 2;
+
+        if (block < 0)
+            return merged;
+
+        long to = block + 1 < run.indexOffsets.length ? run.indexOffsets[block + 1] : run.end;
+        RunReader reader = new RunReader(channel, run.indexOffsets[block], to, BUFFER_SIZE);
+
+        while (reader.next()) {
+            if (reader.key == key)
+                return fold(merged, reader.kind, reader.value);
+
+            if (reader.key > key)
+                break;
+        }
+        return merged;
+    }
+
+    /**
+     * Merges the runs of {@code partition}, oldest first, with the in-memory entries whose sorted
+     * keys are {@code memoryKeys[from, to)} and passes every live entry to {@code visitor}.
+     *
+     * @return {@code false} if {@code visitor} stopped the scan
+     */
+    private boolean scanPartition(int partition, long[] memoryKeys, int from, int to,
+                                  EntryVisitor<? super V> visitor) throws IOException {
+        return scanRuns(partitions[partition].oldestFirst(), memoryKeys, from, to,
+                (key, slot) -> slot.kind == REMOVED || visitor.visit(key, slot.value));
+    }
+
+    /**
+     * Merges the runs of {@code files}, oldest first, with the in-memory entries whose sorted
+     * keys are {@code memoryKeys[from, to)} and passes the folded state of every key to
+     * {@code visitor}, including tombstones. The read buffers share {@code MERGE_BUFFER_BYTES}.
+     *
+     * @return {@code false} if {@code visitor} stopped the scan
+     */
+    private boolean scanRuns(List<SpillFile> files, long[] memoryKeys, int from, int to,
+                             SlotVisitor<V> visitor) throws IOException {
+        int runs = 0;
+        for (SpillFile file : files) {
+            runs += file.runs.size();
+        }
+        int bufferSize = (int) Math.max(MIN_READ_BUFFER_SIZE,
+                Math.min(BUFFER_SIZE, (MERGE_BUFFER_BYTES - BUFFER_SIZE) / Math.max(runs, 1)));
+
+        List<RunReader> readers = new ArrayList<>();
+        for (SpillFile file : files) {
+            for (Run run : file.runs) {
+                RunReader reader = new RunReader(file.channel, run.start, run.end, bufferSize);
+                if (reader.next())
+                    readers.add(reader);
+            }
+        }
+
+        int memoryIndex = from;
+
+        while (!readers.isEmpty() || memoryIndex < to) {
+            long key = memoryIndex < to ? memoryKeys[memoryIndex] : Long.MAX_VALUE;
+            for (RunReader reader : readers) {
+                key = Math.min(key, reader.key);
+            }
+
+            Slot<V> merged = null;
+
+            Iterator<RunReader> iterator = readers.iterator();
+            while (iterator.hasNext()) {
+                RunReader reader = iterator.next();
+                if (reader.key == key) {
+                    merged = fold(merged, reader.kind, reader.value);
+                    if (!reader.next())
+                        iterator.remove();
+                }
+            }
+
+            if (memoryIndex < to && memoryKeys[memoryIndex] == key) {
+                Slot<V> slot = memory.get(key);
+                merged = fold(merged, slot.kind, slot.value);
+                memoryIndex++;
+            }
+
+            if (merged != null && !visitor.visit(key, merged))
+                return false;
+        }
+        return true;
+    }
+
+    private void spillIfOverBudget() {
+        if (memoryBytes > memoryBudget - MERGE_BUFFER_BYTES)
+            spill();
+    }
+
+    /**
+     * Appends one run per partition. The in-memory entries of a partition are dropped as soon as
+     * its run is added, so a spill that fails part way leaves every entry either on disk or in
+     * memory but never in both.
+     */
+    private void spill() {
+        long[] keys = memory.keys();
+        int[] bounds = sortByPartition(keys);
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        try {
+            for (int partition = 0; partition < PARTITIONS; partition++) {
+                if (bounds[partition] == bounds[partition + 1])
+                    continue;
+
+                SpillFile file = tierFile(partition, 0);
+                RunWriter writer = new RunWriter(file, buffer);
+                for (int i = bounds[partition]; i < bounds[partition + 1]; i++) {
+                    Slot<V> slot = memory.get(keys[i]);
+                    writer.write(keys[i], slot.kind, slot.value);
+                }
+
+                Run run = writer.finish();
+                file.runs.add(run);
+                spilledBytes += run.bytes();
+
+                for (int i = bounds[partition]; i < bounds[partition + 1]; i++) {
+                    Slot<V> slot = memory.remove(keys[i]);
+                    memoryBytes -= ENTRY_OVERHEAD_BYTES + valueBytes(slot.value);
+                }
+
+                for (int tier = 0; tierFile(partition, tier).runs.size() >= MERGE_FAN_IN; tier++) {
+                    mergeTier(partition, tier, buffer);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        spillCount++;
+    }
+
+    /**
+     * Merges the runs of {@code tier} into one run appended to the next tier, then truncates the
+     * tier file. When no older runs exist the merged run is the whole history of the partition,
+     * so its tombstones are dropped and the live count becomes exact.
+     */
+    private void mergeTier(int partition, int tier, ByteBuffer buffer) throws IOException {
+        SpillFile source = tierFile(partition, tier);
+        SpillFile target = tierFile(partition, tier + 1);
+        boolean wholeHistory = !partitions[partition].hasRunsAbove(tier);
+        RunWriter writer = new RunWriter(target, buffer);
+        long[] live = {0};
+
+        scanRuns(Collections.singletonList(source), NO_KEYS, 0, 0, (key, slot) -> {
+            if (!wholeHistory) {
+                writer.write(key, slot.kind, slot.value);
+            } else if (slot.kind != REMOVED) {
+                writer.write(key, REPLACED, slot.value);
+                live[0]++;
+            }
+            return true;
+        });
+
+        Run run = writer.finish();
+        if (run != null) {
+            target.runs.add(run);
+            rewrittenBytes += run.bytes();
+        }
+
+        if (wholeHistory) {
+            partitionSizes[partition] = live[0];
+            partitionSizeKnown[partition] = true;
+        }
+
+        source.runs.clear();
+        source.length = 0;
+        source.channel.truncate(0);
+    }
+
+    private SpillFile tierFile(int partition, int tier) throws IOException {
+        List<SpillFile> tiers = partitions[partition].tiers;
+        while (tiers.size() <= tier) {
+            tiers.add(openSpillFile());
+        }
+        return tiers.get(tier);
+    }
+
+    private SpillFile openSpillFile() throws IOException {
+        Path path = Files.createTempFile(spillDirectory, "longmap-", ".spill");
+        try {
+            return new SpillFile(path, FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE));
+        } catch (IOException e) {
+            Files.deleteIfExists(path);
+            throw e;
+        }
+    }
+
+    private void deleteSpillFiles() {
+        for (Partition partition : partitions) {
+            for (SpillFile file : partition.tiers) {
+                closeQuietly(file);
+            }
+            partition.tiers.clear();
+        }
+    }
+
+    private static void closeQuietly(SpillFile file) {
+        try {
+            file.channel.close();
+            Files.deleteIfExists(file.path);
+        } catch (IOException ignored) {
+            // the spill file is a temporary file, nothing else refers to it
+        }
+    }
+
+    private static int partitionOf(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> (Long.SIZE - PARTITION_BITS));
+    }
+
+    /**
+     * Reorders {@code keys} by partition, sorting each partition by key, and returns the
+     * partition bounds: partition {@code p} occupies {@code [bounds[p], bounds[p + 1])}.
+     */
+    private static int[] sortByPartition(long[] keys) {
+        int[] bounds = new int[PARTITIONS + 1];
+        for (long key : keys) {
+            bounds[partitionOf(key) + 1]++;
+        }
+        for (int partition = 0; partition < PARTITIONS; partition++) {
+            bounds[partition + 1] += bounds[partition];
+        }
+
+        long[] sorted = new long[keys.length];
+        int[] next = Arrays.copyOf(bounds, PARTITIONS);
+        for (long key : keys) {
+            sorted[next[partitionOf(key)]++] = key;
+        }
+        System.arraycopy(sorted, 0, keys, 0, keys.length);
+
+        for (int partition = 0; partition < PARTITIONS; partition++) {
+            Arrays.sort(keys, bounds[partition], bounds[partition + 1]);
+        }
+        return bounds;
+    }
+
+    /**
+     * Appends one key-sorted run to the end of a spill file.
+     */
+    private final class RunWriter {
+        private final SpillFile file;
+        private final long start;
+        private final LongArray indexKeys = new LongArray();
+        private final LongArray indexOffsets = new LongArray();
+        private ByteBuffer buffer;
+        private long position;
+        private long lastKey;
+        private long count;
+
+        RunWriter(SpillFile file, ByteBuffer buffer) {
+            this.file = file;
+            this.start = file.length;
+            this.position = file.length;
+            this.buffer = buffer;
+            this.buffer.clear();
+        }
+
+        void write(long key, byte kind, V value) throws IOException {
+            int length = value != null ? codec.sizeOf(value) : -1;
+            int recordBytes = RECORD_HEADER_BYTES + Math.max(length, 0);
+
+            if (buffer.remaining() < recordBytes) {
+                flush();
+                if (buffer.capacity() < recordBytes)
+                    buffer = ByteBuffer.allocate(recordBytes);
+            }
+
+            if (count % INDEX_INTERVAL == 0) {
+                indexKeys.add(key);
+                indexOffsets.add(position + buffer.position());
+            }
+
+            buffer.putLong(key).put(kind).putInt(length);
+            if (value != null)
+                codec.write(value, buffer);
+
+            lastKey = key;
+            count++;
+        }
+
+        /**
+         * @return the written run, or {@code null} if it is empty
+         */
+        Run finish() throws IOException {
+            flush();
+            file.length = position;
+
+            if (count == 0)
+                return null;
+
+            return new Run(indexKeys.toArray(), indexOffsets.toArray(), lastKey, start, position);
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                position += file.channel.write(buffer, position);
+            }
+            buffer.clear();
+        }
+    }
+
+    private final class RunReader {
+        private final FileChannel channel;
+        private final long end;
+        private long position;
+        private ByteBuffer buffer;
+
+        long key;
+        byte kind;
+        V value;
+
+        RunReader(FileChannel channel, long from, long to, int bufferSize) {
+            this.channel = channel;
+            this.position = from;
+            this.end = to;
+            this.buffer = ByteBuffer.allocate((int) Math.min(bufferSize, Math.max(to - from, RECORD_HEADER_BYTES)));
+            this.buffer.flip();
+        }
+
+        boolean next() throws IOException {
+            if (!fill(RECORD_HEADER_BYTES))
+                return false;
+
+            key = buffer.getLong();
+            kind = buffer.get();
+            int length = buffer.getInt();
+
+            if (length < 0) {
+                value = null;
+            } else {
+                if (!fill(length))
+                    throw new IOException("truncated spill run");
+
+                int valueEnd = buffer.position() + length;
+                value = codec.read(buffer, length);
+                buffer.position(valueEnd);
+            }
+            return true;
+        }
+
+        private boolean fill(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes)
+                return true;
+
+            if (buffer.capacity() < bytes) {
+                ByteBuffer bigger = ByteBuffer.allocate(bytes);
+                bigger.put(buffer);
+                buffer = bigger;
+            } else {
+                buffer.compact();
+            }
+
+            buffer.limit((int) Math.min(buffer.capacity(), buffer.position() + (end - position)));
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position);
+                if (read < 0)
+                    throw new IOException("unexpected end of spill file");
+
+                position += read;
+            }
+
+            buffer.flip();
+            return buffer.remaining() >= bytes;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package de.comparus.opensource.longmap;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts values of a {@link SpillableLongMap} to and from the bytes of its spill files.
+ * {@link #sizeOf(Object)} is also used to estimate the heap taken by a value.
+ */
+public interface ValueCodec<V> {
+
+    int sizeOf(V value);
+
+    void write(V value, ByteBuffer buffer);
+
+    V read(ByteBuffer buffer, int length);
+
+    ValueCodec<Long> LONG = new ValueCodec<Long>() {
+        @Override
+        public int sizeOf(Long value) {
+            return Long.BYTES;
+        }
+
+        @Override
+        public void write(Long value, ByteBuffer buffer) {
+            buffer.putLong(value);
+        }
+
+        @Override
+        public Long read(ByteBuffer buffer, int length) {
+            return buffer.getLong();
+        }
+    };
+
+    ValueCodec<String> STRING = new ValueCodec<String>() {
+        @Override
+        public int sizeOf(String value) {
+            return value.getBytes(StandardCharsets.UTF_8).length;
+        }
+
+        @Override
+        public void write(String value, ByteBuffer buffer) {
+            buffer.put(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public String read(ByteBuffer buffer, int length) {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+}
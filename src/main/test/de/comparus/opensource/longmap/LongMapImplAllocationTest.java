@@ -0,0 +1,114 @@
+package de.comparus.opensource.longmap;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+public class LongMapImplAllocationTest {
+    private static final String TEST_STRING_VALUE = "TEST_STRING_VALUE";
+    private static final String TEST_APPLE = "TEST_APPLE";
+
+    private static final long ONE_MILLION = 1_000_000L;
+    private static final long TEN_MILLION = 10_000_000L;
+
+    /**
+     * Slack for bytes the measuring thread may allocate outside of the map
+     * (e.g. JIT deoptimization or MXBean bookkeeping), far below one byte per operation.
+     */
+    private static final long ALLOCATION_TOLERANCE_BYTES = 64 * 1024L;
+
+    private static com.sun.management.ThreadMXBean threadMXBean;
+
+    LongMap<String> longMap;
+
+    private long blackhole;
+
+    @Before
+    public void initMap() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+
+        threadMXBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+        longMap = new LongMapImpl<>();
+        for (long i = 0; i < ONE_MILLION; i++) {
+            longMap.put(i, TEST_STRING_VALUE);
+        }
+    }
+
+    @Test
+    public void getDoesNotAllocateTest() {
+        long allocated = measureAllocatedBytes(() -> {
+            for (long i = 0; i < TEN_MILLION; i++) {
+                if (longMap.get(i % (2 * ONE_MILLION)) != null)
+                    blackhole++;
+            }
+        });
+
+        assertNoAllocation(allocated);
+        assertTrue(blackhole > 0);
+    }
+
+    @Test
+    public void containsKeyDoesNotAllocateTest() {
+        long allocated = measureAllocatedBytes(() -> {
+            for (long i = 0; i < TEN_MILLION; i++) {
+                if (longMap.containsKey(i % (2 * ONE_MILLION)))
+                    blackhole++;
+            }
+        });
+
+        assertNoAllocation(allocated);
+        assertTrue(blackhole > 0);
+    }
+
+    @Test
+    public void putReplaceDoesNotAllocateTest() {
+        long allocated = measureAllocatedBytes(() -> {
+            for (long i = 0; i < TEN_MILLION; i++) {
+                longMap.put(i % ONE_MILLION, (i & 1) == 0 ? TEST_APPLE : TEST_STRING_VALUE);
+            }
+        });
+
+        assertNoAllocation(allocated);
+        assertEquals(ONE_MILLION, longMap.size());
+    }
+
+    @Test
+    public void removeDoesNotAllocateTest() {
+        long allocated = measureAllocatedBytes(() -> {
+            for (long i = 0; i < TEN_MILLION; i++) {
+                if (longMap.remove(i % (2 * ONE_MILLION)) != null)
+                    blackhole++;
+            }
+        });
+
+        assertNoAllocation(allocated);
+        assertEquals(0, longMap.size());
+    }
+
+    private long measureAllocatedBytes(Runnable operations) {
+        long threadId = Thread.currentThread().getId();
+
+        // warm up the measuring call itself so its own allocations are not counted
+        threadMXBean.getThreadAllocatedBytes(threadId);
+        threadMXBean.getThreadAllocatedBytes(threadId);
+
+        long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        operations.run();
+        long after = threadMXBean.getThreadAllocatedBytes(threadId);
+
+        return after - before;
+    }
+
+    private void assertNoAllocation(long allocated) {
+        assertTrue("hot path allocated " + allocated + " bytes",
+                allocated <= ALLOCATION_TOLERANCE_BYTES);
+    }
+}
@@ -0,0 +1,316 @@
+package de.comparus.opensource.longmap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class LongMapImplSetOperationsTest {
+    private static final long ONE_HUNDRED_THOUSAND = 100_000L;
+    private static final long ONE_MILLION = 1_000_000L;
+
+    LongMap<String> evenMap;
+    LongMap<Long> thirdMap;
+
+    @Before
+    public void initMaps() {
+        evenMap = new LongMapImpl<>();
+        thirdMap = new LongMapImpl<>();
+    }
+
+    @Test
+    public void intersectKeysOfEmptyMapsTest() {
+        assertEquals(0, evenMap.intersectKeys(thirdMap).length);
+
+        populateEvenMap(ONE_HUNDRED_THOUSAND);
+        assertEquals(0, evenMap.intersectKeys(thirdMap).length);
+        assertEquals(0, thirdMap.intersectKeys(evenMap).length);
+    }
+
+    @Test
+    public void intersectKeysFromBothSidesTest() {
+        populateEvenMap(ONE_HUNDRED_THOUSAND);
+        populateThirdMap(ONE_HUNDRED_THOUSAND / 10);
+
+        long[] expected = expectedCommonKeys(ONE_HUNDRED_THOUSAND, ONE_HUNDRED_THOUSAND / 10);
+
+        assertArrayEquals(expected, sorted(evenMap.intersectKeys(thirdMap)));
+        assertArrayEquals(expected, sorted(thirdMap.intersectKeys(evenMap)));
+    }
+
+    @Test
+    public void intersectKeysInParallelTest() {
+        populateEvenMap(ONE_MILLION);
+        populateThirdMap(ONE_MILLION);
+
+        long[] expected = expectedCommonKeys(ONE_MILLION, ONE_MILLION);
+
+        assertArrayEquals(expected, sorted(evenMap.intersectKeys(thirdMap, true)));
+        assertArrayEquals(expected, sorted(thirdMap.intersectKeys(evenMap, true)));
+    }
+
+    @Test
+    public void joinFromBothSidesTest() {
+        populateEvenMap(ONE_HUNDRED_THOUSAND);
+        populateThirdMap(ONE_HUNDRED_THOUSAND / 10);
+
+        assertJoined(evenMap.join(thirdMap, (even, third) -> even + ":" + third),
+                expectedCommonKeys(ONE_HUNDRED_THOUSAND, ONE_HUNDRED_THOUSAND / 10));
+        assertJoined(thirdMap.join(evenMap, (third, even) -> even + ":" + third),
+                expectedCommonKeys(ONE_HUNDRED_THOUSAND, ONE_HUNDRED_THOUSAND / 10));
+    }
+
+    @Test
+    public void joinInParallelTest() {
+        populateEvenMap(ONE_MILLION);
+        populateThirdMap(ONE_MILLION / 2);
+
+        assertJoined(evenMap.join(thirdMap, (even, third) -> even + ":" + third, true),
+                expectedCommonKeys(ONE_MILLION, ONE_MILLION / 2));
+    }
+
+    @Test
+    public void joinWithEmptyMapTest() {
+        populateEvenMap(ONE_HUNDRED_THOUSAND);
+
+        LongMap<String> joined = evenMap.join(thirdMap, (even, third) -> even);
+
+        assertTrue(joined.isEmpty());
+        assertEquals(0, joined.keys().length);
+    }
+
+    @Test
+    public void retainAllWhenOtherIsSmallerTest() {
+        populateEvenMap(ONE_HUNDRED_THOUSAND);
+        populateThirdMap(ONE_HUNDRED_THOUSAND / 10);
+
+        assertTrue(evenMap.retainAll(thirdMap));
+
+        assertRetained(expectedCommonKeys(ONE_HUNDRED_THOUSAND, ONE_HUNDRED_THOUSAND / 10));
+    }
+
+    @Test
+    public void retainAllWhenOtherIsLargerTest() {
+        populateEvenMap(ONE_HUNDRED_THOUSAND / 10);
+        populateThirdMap(ONE_HUNDRED_THOUSAND);
+
+        assertTrue(evenMap.retainAll(thirdMap));
+
+        assertRetained(expectedCommonKeys(ONE_HUNDRED_THOUSAND / 10, ONE_HUNDRED_THOUSAND));
+    }
+
+    @Test
+    public void retainAllWithItselfDoesNotChangeMapTest() {
+        populateEvenMap(ONE_HUNDRED_THOUSAND);
+
+        assertFalse(evenMap.retainAll(evenMap));
+        assertEquals(ONE_HUNDRED_THOUSAND, evenMap.size());
+    }
+
+    @Test
+    public void retainAllWithEmptyMapClearsTest() {
+        populateEvenMap(ONE_HUNDRED_THOUSAND);
+
+        assertTrue(evenMap.retainAll(thirdMap));
+        assertTrue(evenMap.isEmpty());
+    }
+
+    @Test
+    public void removeAllFromBothSidesTest() {
+        populateEvenMap(ONE_HUNDRED_THOUSAND);
+        populateThirdMap(ONE_HUNDRED_THOUSAND / 10);
+
+        LongMap<String> evenCopy = new LongMapImpl<>();
+        evenCopy.putAllFrom(evenMap);
+        long[] common = expectedCommonKeys(ONE_HUNDRED_THOUSAND, ONE_HUNDRED_THOUSAND / 10);
+
+        assertTrue(evenMap.removeAll(thirdMap));
+        assertTrue(thirdMap.removeAll(evenCopy));
+
+        assertEquals(ONE_HUNDRED_THOUSAND - common.length, evenMap.size());
+        assertEquals(ONE_HUNDRED_THOUSAND / 10 - common.length, thirdMap.size());
+        for (long key : common) {
+            assertFalse(evenMap.containsKey(key));
+            assertFalse(thirdMap.containsKey(key));
+        }
+        assertFalse(evenMap.removeAll(thirdMap));
+    }
+
+    @Test
+    public void putAllFromReplacesAndAddsTest() {
+        populateEvenMap(ONE_HUNDRED_THOUSAND);
+
+        LongMap<String> other = new LongMapImpl<>();
+        for (long i = 0; i < ONE_HUNDRED_THOUSAND; i++) {
+            other.put(i, "other" + i);
+        }
+
+        evenMap.putAllFrom(other);
+
+        assertEquals(ONE_HUNDRED_THOUSAND + ONE_HUNDRED_THOUSAND / 2, evenMap.size());
+        for (long i = 0; i < ONE_HUNDRED_THOUSAND; i++) {
+            assertEquals("other" + i, evenMap.get(i));
+        }
+        for (long i = ONE_HUNDRED_THOUSAND; i < 2 * ONE_HUNDRED_THOUSAND; i += 2) {
+            assertEquals(Long.toString(i), evenMap.get(i));
+        }
+    }
+
+    @Test
+    public void putAllFromIntoEmptyMapTest() {
+        populateEvenMap(ONE_HUNDRED_THOUSAND);
+
+        LongMap<String> copy = new LongMapImpl<>();
+        copy.putAllFrom(evenMap);
+
+        assertEquals(evenMap.size(), copy.size());
+        for (long key : evenMap.keys()) {
+            assertEquals(evenMap.get(key), copy.get(key));
+        }
+    }
+
+    @Test
+    public void joinWithOtherImplementationProbesSmallerSideTest() {
+        populateEvenMap(ONE_HUNDRED_THOUSAND);
+        ProbeCountingLongMap<Long> small = new ProbeCountingLongMap<>();
+        for (long i = 0; i < 100; i++) {
+            small.put(i * 3, i * 3);
+        }
+        small.put(4L, null);
+
+        LongMap<String> joined = evenMap.join(small, (even, third) -> even + ":" + third);
+
+        assertEquals(51, joined.size());
+        assertEquals("4:null", joined.get(4L));
+        assertEquals("6:6", joined.get(6L));
+        assertTrue(small.probes <= small.size());
+    }
+
+    @Test
+    public void defaultSetOperationsTest() {
+        ProbeCountingLongMap<String> map = new ProbeCountingLongMap<>();
+        for (long i = 0; i < ONE_HUNDRED_THOUSAND / 10; i++) {
+            map.put(i, Long.toString(i));
+        }
+        populateThirdMap(ONE_HUNDRED_THOUSAND);
+
+        assertEquals(ONE_HUNDRED_THOUSAND / 30 + 1, map.intersectKeys(thirdMap, true).length);
+
+        LongMap<String> joined = map.join(thirdMap, (value, third) -> value + ":" + third);
+        assertEquals(ONE_HUNDRED_THOUSAND / 30 + 1, joined.size());
+        assertEquals("9:9", joined.get(9L));
+
+        map.putAllFrom(evenMapWithKeys(0, 1, 2, ONE_HUNDRED_THOUSAND));
+        assertEquals(ONE_HUNDRED_THOUSAND / 10 + 1, map.size());
+        assertEquals("even", map.get(ONE_HUNDRED_THOUSAND));
+
+        assertTrue(map.removeAll(evenMapWithKeys(1, ONE_HUNDRED_THOUSAND)));
+        assertTrue(map.retainAll(thirdMap));
+        assertFalse(map.retainAll(thirdMap));
+        assertEquals(ONE_HUNDRED_THOUSAND / 30 + 1, map.size());
+        for (long key : map.keys()) {
+            assertEquals(0, key % 3);
+        }
+    }
+
+    private LongMap<String> evenMapWithKeys(long... keys) {
+        LongMap<String> map = new LongMapImpl<>();
+        for (long key : keys) {
+            map.put(key, "even");
+        }
+        return map;
+    }
+
+    private void populateEvenMap(long count) {
+        for (long i = 0; i < count; i++) {
+            evenMap.put(i * 2, Long.toString(i * 2));
+        }
+    }
+
+    private void populateThirdMap(long count) {
+        for (long i = 0; i < count; i++) {
+            thirdMap.put(i * 3, i * 3);
+        }
+    }
+
+    private long[] expectedCommonKeys(long evenCount, long thirdCount) {
+        long bound = Math.min(evenCount * 2, thirdCount * 3);
+        long[] keys = new long[(int) ((bound + 5) / 6)];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = i * 6L;
+        }
+        return keys;
+    }
+
+    private void assertJoined(LongMap<String> joined, long[] expectedKeys) {
+        assertEquals(expectedKeys.length, joined.size());
+        for (long key : expectedKeys) {
+            assertEquals(key + ":" + key, joined.get(key));
+        }
+    }
+
+    private void assertRetained(long[] expectedKeys) {
+        assertArrayEquals(expectedKeys, sorted(evenMap.keys()));
+        for (long key : expectedKeys) {
+            assertEquals(Long.toString(key), evenMap.get(key));
+        }
+    }
+
+    private static long[] sorted(long[] keys) {
+        Arrays.sort(keys);
+        return keys;
+    }
+
+    /**
+     * A {@link LongMap} that is not a {@link LongMapImpl}, so it uses the default set operations,
+     * and counts how often it is probed.
+     */
+    private static class ProbeCountingLongMap<V> implements LongMap<V> {
+        private final LongMap<V> delegate = new LongMapImpl<>();
+        long probes;
+
+        public V put(long key, V value) {
+            return delegate.put(key, value);
+        }
+
+        public V get(long key) {
+            probes++;
+            return delegate.get(key);
+        }
+
+        public V remove(long key) {
+            return delegate.remove(key);
+        }
+
+        public boolean isEmpty() {
+            return delegate.isEmpty();
+        }
+
+        public boolean containsKey(long key) {
+            probes++;
+            return delegate.containsKey(key);
+        }
+
+        public boolean containsValue(V value) {
+            return delegate.containsValue(value);
+        }
+
+        public long[] keys() {
+            return delegate.keys();
+        }
+
+        public V[] values() {
+            return delegate.values();
+        }
+
+        public long size() {
+            return delegate.size();
+        }
+
+        public void clear() {
+            delegate.clear();
+        }
+    }
+}
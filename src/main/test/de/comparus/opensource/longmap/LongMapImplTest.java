@@ -173,6 +173,61 @@ public class LongMapImplTest {
         assertTrue(longMap.containsKey(1023));
     }
 
+    @Test
+    public void inOneMapBucketKeysSurviveResizeTest() {
+        for (long i = 0; i < TEN_THOUSAND; i++) {
+            longMap.put(i << 16, getStringFromLong(i));
+        }
+
+        for (long i = 0; i < TEN_THOUSAND; i++) {
+            assertEquals(getStringFromLong(i), longMap.get(i << 16));
+        }
+
+        for (long i = 0; i < TEN_THOUSAND; i += 2) {
+            assertEquals(getStringFromLong(i), longMap.remove(i << 16));
+        }
+
+        for (long i = 0; i < TEN_THOUSAND; i++) {
+            assertEquals(i % 2 != 0, longMap.containsKey(i << 16));
+        }
+        assertEquals(TEN_THOUSAND / 2, longMap.size());
+    }
+
+    @Test
+    public void keysWithHighBitsSurviveGrowthAcrossChunksTest() {
+        for (long i = 1; i <= TEN_THOUSAND * 50; i++) {
+            longMap.put(i << 33 | i, getStringFromLong(i));
+        }
+
+        for (long i = 1; i <= TEN_THOUSAND * 50; i++) {
+            assertEquals(getStringFromLong(i), longMap.get(i << 33 | i));
+            assertNull(longMap.get(i << 32 | i));
+        }
+        assertEquals(TEN_THOUSAND * 50, longMap.size());
+    }
+
+    @Test
+    public void presizedMapSpanningSeveralChunksTest() {
+        LongMap<String> presizedMap = new LongMapImpl<>(1L << 20);
+
+        for (long i = 0; i < TEN_THOUSAND * 10; i++) {
+            presizedMap.put(-i * 31, getStringFromLong(i));
+        }
+        for (long i = 0; i < TEN_THOUSAND * 10; i += 2) {
+            assertEquals(getStringFromLong(i), presizedMap.remove(-i * 31));
+        }
+
+        assertEquals(TEN_THOUSAND * 5, presizedMap.size());
+        assertEquals(TEN_THOUSAND * 5, presizedMap.keys().length);
+        for (long i = 0; i < TEN_THOUSAND * 10; i++) {
+            assertEquals(i % 2 != 0, presizedMap.containsKey(-i * 31));
+        }
+
+        presizedMap.clear();
+        assertTrue(presizedMap.isEmpty());
+        assertFalse(presizedMap.containsKey(-31));
+    }
+
     @Test
     public void keyWithNullValueExistsInMapTest() {
         longMap.put(1L, null);
@@ -0,0 +1,59 @@
+package de.comparus.opensource.longmap;
+
+/**
+ * Manual benchmark for the set operations of {@link LongMapImpl}, not run by the test suite.
+ * Usage: {@code LongMapJoinBenchmark [smallSize] [largeSize]}, defaults are 10M and 100M entries,
+ * which needs a heap of roughly 8 GB ({@code -Xmx8g}).
+ */
+public class LongMapJoinBenchmark {
+    private static final long DEFAULT_SMALL_SIZE = 10_000_000L;
+    private static final long DEFAULT_LARGE_SIZE = 100_000_000L;
+
+    private static final Long VALUE = 1L;
+
+    public static void main(String[] args) {
+        long smallSize = args.length > 0 ? Long.parseLong(args[0]) : DEFAULT_SMALL_SIZE;
+        long largeSize = args.length > 1 ? Long.parseLong(args[1]) : DEFAULT_LARGE_SIZE;
+
+        LongMap<Long> small = populate(smallSize, 3);
+        LongMap<Long> large = populate(largeSize, 2);
+
+        measure("keys() + get (baseline)", () -> {
+            long found = 0;
+            for (long key : small.keys()) {
+                if (large.get(key) != null)
+                    found++;
+            }
+            return found;
+        });
+        measure("intersectKeys", () -> large.intersectKeys(small).length);
+        measure("intersectKeys parallel", () -> large.intersectKeys(small, true).length);
+        measure("join", () -> large.join(small, Long::sum).size());
+        measure("join parallel", () -> large.join(small, Long::sum, true).size());
+    }
+
+    private static LongMap<Long> populate(long size, long step) {
+        LongMap<Long> map = new LongMapImpl<>();
+        for (long i = 0; i < size; i++) {
+            map.put(i * step, VALUE);
+        }
+        return map;
+    }
+
+    private static void measure(String name, Operation operation) {
+        long result = 0;
+        long best = Long.MAX_VALUE;
+
+        for (int run = 0; run < 5; run++) {
+            long start = System.nanoTime();
+            result = operation.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        System.out.printf("%-25s %8d ms  (%d matches)%n", name, best / 1_000_000, result);
+    }
+
+    private interface Operation {
+        long run();
+    }
+}
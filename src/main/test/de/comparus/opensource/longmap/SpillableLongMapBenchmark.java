@@ -0,0 +1,66 @@
+package de.comparus.opensource.longmap;
+
+import java.util.Random;
+
+/**
+ * Manual benchmark of group-by aggregation with {@link SpillableLongMap}, not run by the test suite.
+ * The number of groups is chosen so that their estimated size is 1x, 4x and 16x the memory budget,
+ * and every group gets 4 and 64 rows on average unless a single rows per group count is given;
+ * many rows per group means many spills, which is what stresses the run merging. Bytes spilled
+ * and rewritten by merges show the write amplification.
+ * Usage: {@code SpillableLongMapBenchmark [budgetMegabytes] [rowsPerGroup]}, default is 64 MB.
+ */
+public class SpillableLongMapBenchmark {
+    private static final long DEFAULT_BUDGET_MEGABYTES = 64;
+
+    /**
+     * Estimated in-memory size of one group with a {@link Long} sum.
+     */
+    private static final long GROUP_BYTES = 64 + Long.BYTES;
+
+    private static final int[] DEFAULT_ROWS_PER_GROUP = {4, 64};
+
+    private static final int[] OVERFLOW_FACTORS = {1, 4, 16};
+
+    public static void main(String[] args) {
+        long budget = (args.length > 0 ? Long.parseLong(args[0]) : DEFAULT_BUDGET_MEGABYTES) << 20;
+        int[] rowsPerGroup = args.length > 1 ? new int[]{Integer.parseInt(args[1])} : DEFAULT_ROWS_PER_GROUP;
+
+        for (int rows : rowsPerGroup) {
+            for (int factor : OVERFLOW_FACTORS) {
+                run(budget, factor, rows);
+            }
+        }
+    }
+
+    private static void run(long budget, int factor, int rowsPerGroup) {
+        long groups = factor * budget / GROUP_BYTES;
+        Random random = new Random(factor);
+
+        try (SpillableLongMap<Long> sums = new SpillableLongMap<>(budget, ValueCodec.LONG, Long::sum)) {
+            long start = System.nanoTime();
+            for (long row = 0; row < groups * rowsPerGroup; row++) {
+                sums.aggregate(Math.floorMod(random.nextLong(), groups), 1L);
+            }
+            long aggregated = System.nanoTime();
+
+            long[] total = {0};
+            sums.forEach((key, sum) -> total[0] += sum);
+            long merged = System.nanoTime();
+
+            long lookups = Math.min(groups, 10_000);
+            for (long key = 0; key < lookups; key++) {
+                sums.get(key);
+            }
+            long looked = System.nanoTime();
+
+            System.out.printf("%2dx budget, %d rows/group: %,d groups, %d spills, %d spill files, "
+                            + "%,d MB spilled, %,d MB rewritten by merges, "
+                            + "aggregate %d ms, merge %d ms, get %.1f us (%,d rows)%n",
+                    factor, rowsPerGroup, sums.size(), sums.spillCount(), sums.spillFileCount(),
+                    sums.spilledBytes() >> 20, sums.rewrittenBytes() >> 20,
+                    (aggregated - start) / 1_000_000, (merged - aggregated) / 1_000_000,
+                    (looked - merged) / 1_000.0 / lookups, total[0]);
+        }
+    }
+}
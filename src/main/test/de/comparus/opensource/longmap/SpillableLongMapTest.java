@@ -0,0 +1,375 @@
+package de.comparus.opensource.longmap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class SpillableLongMapTest {
+    private static final long ONE_HUNDRED_THOUSAND = 100_000L;
+    private static final long GROUPS = 10_000L;
+
+    /**
+     * Fits a few thousand small entries, so the tests below spill many times.
+     */
+    private static final long SMALL_BUDGET = 256 * 1024L;
+
+    private Path spillDirectory;
+
+    private SpillableLongMap<Long> sumMap;
+    private SpillableLongMap<String> stringMap;
+
+    @Before
+    public void initMaps() throws IOException {
+        spillDirectory = Files.createTempDirectory("longmap-test");
+        sumMap = new SpillableLongMap<>(SMALL_BUDGET, ValueCodec.LONG, Long::sum, spillDirectory);
+        stringMap = new SpillableLongMap<>(SMALL_BUDGET, ValueCodec.STRING, (old, added) -> added, spillDirectory);
+    }
+
+    @After
+    public void closeMaps() throws IOException {
+        sumMap.close();
+        stringMap.close();
+        Files.deleteIfExists(spillDirectory);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void illegalArgumentExceptionWhenBudgetIsBelowMinimum() {
+        new SpillableLongMap<>(0, ValueCodec.LONG, Long::sum, spillDirectory);
+    }
+
+    @Test
+    public void budgetMustLeaveEntrySpaceBesideMergeBuffersTest() {
+        long[] tooSmall = {
+                SpillableLongMap.MERGE_BUFFER_BYTES,
+                SpillableLongMap.MERGE_BUFFER_BYTES + 1,
+                SpillableLongMap.MIN_MEMORY_BUDGET - 1
+        };
+        for (long budget : tooSmall) {
+            try {
+                new SpillableLongMap<>(budget, ValueCodec.LONG, Long::sum, spillDirectory);
+                fail("budget " + budget + " was accepted");
+            } catch (IllegalArgumentException expected) {
+                // the budget leaves too little room for entries
+            }
+        }
+
+        try (SpillableLongMap<Long> map = new SpillableLongMap<>(SpillableLongMap.MIN_MEMORY_BUDGET,
+                ValueCodec.LONG, Long::sum, spillDirectory)) {
+            for (long i = 0; i < GROUPS; i++) {
+                map.aggregate(i, 1L);
+            }
+            assertTrue(map.spillCount() > 0);
+            assertTrue(map.spillCount() < GROUPS / 500);
+            assertEquals(GROUPS, map.size());
+        }
+    }
+
+    @Test
+    public void putAndGetWithoutSpillTest() {
+        assertNull(stringMap.put(1L, "one"));
+        assertEquals("one", stringMap.put(1L, "uno"));
+
+        assertEquals("uno", stringMap.get(1L));
+        assertEquals(1, stringMap.size());
+        assertEquals(0, stringMap.spillCount());
+    }
+
+    @Test
+    public void putAndGetAfterSpillTest() {
+        for (long i = 0; i < ONE_HUNDRED_THOUSAND; i++) {
+            assertNull(stringMap.put(i, Long.toString(i)));
+        }
+
+        assertTrue(stringMap.spillCount() > 1);
+        assertEquals(ONE_HUNDRED_THOUSAND, stringMap.size());
+        for (long i = 0; i < ONE_HUNDRED_THOUSAND; i++) {
+            assertEquals(Long.toString(i), stringMap.get(i));
+        }
+        assertNull(stringMap.get(-1L));
+        assertFalse(stringMap.containsKey(ONE_HUNDRED_THOUSAND));
+    }
+
+    @Test
+    public void putReplacesSpilledValueTest() {
+        for (long i = 0; i < ONE_HUNDRED_THOUSAND; i++) {
+            stringMap.put(i, Long.toString(i));
+        }
+        for (long i = 0; i < ONE_HUNDRED_THOUSAND; i += 3) {
+            assertEquals(Long.toString(i), stringMap.put(i, "replaced"));
+        }
+
+        assertEquals(ONE_HUNDRED_THOUSAND, stringMap.size());
+        for (long i = 0; i < ONE_HUNDRED_THOUSAND; i++) {
+            assertEquals(i % 3 == 0 ? "replaced" : Long.toString(i), stringMap.get(i));
+        }
+    }
+
+    @Test
+    public void removeSpilledKeysTest() {
+        for (long i = 0; i < ONE_HUNDRED_THOUSAND; i++) {
+            stringMap.put(i, Long.toString(i));
+        }
+        for (long i = 0; i < ONE_HUNDRED_THOUSAND; i += 2) {
+            assertEquals(Long.toString(i), stringMap.remove(i));
+        }
+        assertNull(stringMap.remove(0L));
+
+        assertEquals(ONE_HUNDRED_THOUSAND / 2, stringMap.size());
+        for (long i = 0; i < ONE_HUNDRED_THOUSAND; i++) {
+            assertEquals(i % 2 != 0, stringMap.containsKey(i));
+        }
+        assertEquals(ONE_HUNDRED_THOUSAND / 2, stringMap.keys().length);
+    }
+
+    @Test
+    public void keyWithNullValueSurvivesSpillTest() {
+        stringMap.put(-7L, null);
+        for (long i = 0; i < ONE_HUNDRED_THOUSAND; i++) {
+            stringMap.put(i, Long.toString(i));
+        }
+
+        assertTrue(stringMap.spillCount() > 0);
+        assertTrue(stringMap.containsKey(-7L));
+        assertNull(stringMap.get(-7L));
+    }
+
+    @Test
+    public void aggregateAcrossSpillsTest() {
+        for (long row = 0; row < ONE_HUNDRED_THOUSAND * 10; row++) {
+            sumMap.aggregate(row % GROUPS * 7919, row);
+        }
+
+        assertTrue(sumMap.spillCount() > 1);
+        assertEquals(GROUPS, sumMap.size());
+        for (long group = 0; group < GROUPS; group++) {
+            assertEquals(Long.valueOf(expectedSum(group)), sumMap.get(group * 7919));
+        }
+    }
+
+    @Test
+    public void forEachVisitsEveryAggregatedGroupOnceTest() {
+        for (long row = 0; row < ONE_HUNDRED_THOUSAND * 10; row++) {
+            sumMap.aggregate(row % GROUPS * 7919, row);
+        }
+
+        Map<Long, Long> visited = new HashMap<>();
+        sumMap.forEach((key, sum) -> assertNull(visited.put(key, sum)));
+
+        assertEquals(GROUPS, visited.size());
+        for (long group = 0; group < GROUPS; group++) {
+            assertEquals(Long.valueOf(expectedSum(group)), visited.get(group * 7919));
+        }
+    }
+
+    @Test
+    public void aggregateAfterPutAndRemoveTest() {
+        for (long i = 0; i < ONE_HUNDRED_THOUSAND; i++) {
+            sumMap.aggregate(i, 1L);
+        }
+        sumMap.put(5L, 100L);
+        sumMap.remove(6L);
+        for (long i = 0; i < ONE_HUNDRED_THOUSAND; i++) {
+            sumMap.aggregate(i, 1L);
+        }
+
+        assertEquals(Long.valueOf(101L), sumMap.get(5L));
+        assertEquals(Long.valueOf(1L), sumMap.get(6L));
+        assertEquals(Long.valueOf(2L), sumMap.get(7L));
+        assertEquals(ONE_HUNDRED_THOUSAND, sumMap.size());
+    }
+
+    @Test
+    public void valuesAndContainsValueAfterSpillTest() {
+        for (long i = 0; i < ONE_HUNDRED_THOUSAND; i++) {
+            stringMap.put(i, Long.toString(i));
+        }
+
+        String[] values = stringMap.values();
+        Arrays.sort(values);
+
+        assertEquals(ONE_HUNDRED_THOUSAND, values.length);
+        assertTrue(Arrays.binarySearch(values, "12345") >= 0);
+        assertTrue(stringMap.containsValue("99999"));
+        assertFalse(stringMap.containsValue("100000"));
+    }
+
+    @Test
+    public void setOperationsWithSpilledMapTest() {
+        LongMap<Long> evens = new LongMapImpl<>();
+        for (long i = 0; i < ONE_HUNDRED_THOUSAND; i++) {
+            sumMap.aggregate(i, i);
+            evens.put(i * 2, 1L);
+        }
+
+        assertEquals(ONE_HUNDRED_THOUSAND / 2, sumMap.intersectKeys(evens).length);
+
+        LongMap<Long> joined = sumMap.join(evens, Long::sum);
+        assertEquals(ONE_HUNDRED_THOUSAND / 2, joined.size());
+        assertEquals(Long.valueOf(11L), joined.get(10L));
+
+        assertTrue(sumMap.retainAll(evens));
+        assertEquals(ONE_HUNDRED_THOUSAND / 2, sumMap.size());
+        assertFalse(sumMap.containsKey(1L));
+
+        assertTrue(sumMap.removeAll(evens));
+        assertTrue(sumMap.isEmpty());
+
+        sumMap.putAllFrom(evens);
+        assertEquals(ONE_HUNDRED_THOUSAND, sumMap.size());
+        assertEquals(Long.valueOf(1L), sumMap.get(ONE_HUNDRED_THOUSAND * 2 - 2));
+    }
+
+    @Test
+    public void clearAndCloseDeleteSpillFilesTest() throws IOException {
+        for (long i = 0; i < ONE_HUNDRED_THOUSAND; i++) {
+            stringMap.put(i, Long.toString(i));
+        }
+        assertTrue(countSpillFiles() > 0);
+
+        stringMap.clear();
+        assertEquals(0, countSpillFiles());
+        assertTrue(stringMap.isEmpty());
+        assertNull(stringMap.get(1L));
+
+        stringMap.put(1L, "one");
+        stringMap.close();
+        assertEquals(0, countSpillFiles());
+    }
+
+    @Test
+    public void spillFilesStayBoundedPastMergeFanInTest() throws IOException {
+        for (long row = 0; row < ONE_HUNDRED_THOUSAND * 10; row++) {
+            sumMap.aggregate(row % (GROUPS * 10), 1L);
+        }
+
+        assertTrue(sumMap.spillCount() > 2 * SpillableLongMap.MERGE_FAN_IN);
+        int tiers = tiers(sumMap.spillCount());
+        assertTrue(sumMap.maxRunsPerPartition() <= (SpillableLongMap.MERGE_FAN_IN - 1) * tiers);
+        assertTrue(sumMap.spillFileCount() <= SpillableLongMap.PARTITIONS * tiers);
+        assertEquals(sumMap.spillFileCount(), countSpillFiles());
+
+        assertEquals(GROUPS * 10, sumMap.size());
+        for (long group = 0; group < GROUPS * 10; group++) {
+            assertEquals(Long.valueOf(10L), sumMap.get(group));
+        }
+    }
+
+    @Test
+    public void sizeAndIsEmptyAfterSpilledAggregationTest() {
+        assertTrue(sumMap.isEmpty());
+
+        for (long i = 0; i < ONE_HUNDRED_THOUSAND; i++) {
+            sumMap.aggregate(i, 1L);
+        }
+        assertFalse(sumMap.isEmpty());
+        assertEquals(ONE_HUNDRED_THOUSAND, sumMap.size());
+
+        for (long i = 0; i < ONE_HUNDRED_THOUSAND * 2; i++) {
+            sumMap.aggregate(i, 1L);
+        }
+        assertEquals(ONE_HUNDRED_THOUSAND * 2, sumMap.size());
+
+        for (long i = 0; i < ONE_HUNDRED_THOUSAND * 2; i++) {
+            sumMap.remove(i);
+        }
+        assertEquals(0, sumMap.size());
+        assertTrue(sumMap.isEmpty());
+    }
+
+    @Test
+    public void mergesRewriteSpilledDataOncePerTierTest() {
+        for (long row = 0; row < ONE_HUNDRED_THOUSAND * 20; row++) {
+            sumMap.aggregate(Math.floorMod(row * 0x9E3779B97F4A7C15L, GROUPS * 10), 1L);
+        }
+
+        int tiers = tiers(sumMap.spillCount());
+        assertTrue(tiers >= 3);
+        // a spilled record is rewritten at most once per tier above tier 0
+        assertTrue(sumMap.rewrittenBytes() <= (tiers - 1) * sumMap.spilledBytes());
+        assertEquals(GROUPS * 10, sumMap.size());
+        assertEquals(Long.valueOf(20L), sumMap.get(12345L));
+    }
+
+    @Test
+    public void failedSpillKeepsAggregatesExactTest() throws IOException {
+        FailingCodec codec = new FailingCodec(2_000);
+        int failures = 0;
+
+        try (SpillableLongMap<Long> map = new SpillableLongMap<>(SMALL_BUDGET, codec, Long::sum, spillDirectory)) {
+            for (long i = 0; i < GROUPS; i++) {
+                try {
+                    map.aggregate(i, 1L);
+                } catch (IllegalStateException e) {
+                    failures++;
+                }
+            }
+
+            assertEquals(1, failures);
+            assertTrue(map.spillCount() > 1);
+            assertEquals(GROUPS, map.size());
+            for (long i = 0; i < GROUPS; i++) {
+                assertEquals(Long.valueOf(1L), map.get(i));
+            }
+        }
+    }
+
+    private static int tiers(int spills) {
+        int tiers = 1;
+        for (int runs = spills; runs >= SpillableLongMap.MERGE_FAN_IN; runs /= SpillableLongMap.MERGE_FAN_IN) {
+            tiers++;
+        }
+        return tiers;
+    }
+
+    /**
+     * {@link ValueCodec#LONG} whose n-th write fails once.
+     */
+    private static class FailingCodec implements ValueCodec<Long> {
+        private final int failingWrite;
+        private int writes;
+
+        FailingCodec(int failingWrite) {
+            this.failingWrite = failingWrite;
+        }
+
+        @Override
+        public int sizeOf(Long value) {
+            return ValueCodec.LONG.sizeOf(value);
+        }
+
+        @Override
+        public void write(Long value, ByteBuffer buffer) {
+            if (++writes == failingWrite)
+                throw new IllegalStateException("write " + writes + " failed");
+
+            ValueCodec.LONG.write(value, buffer);
+        }
+
+        @Override
+        public Long read(ByteBuffer buffer, int length) {
+            return ValueCodec.LONG.read(buffer, length);
+        }
+    }
+
+    private long expectedSum(long group) {
+        long rows = ONE_HUNDRED_THOUSAND * 10 / GROUPS;
+        return group * rows + GROUPS * rows * (rows - 1) / 2;
+    }
+
+    private long countSpillFiles() throws IOException {
+        try (Stream<Path> files = Files.list(spillDirectory)) {
+            return files.count();
+        }
+    }
+}